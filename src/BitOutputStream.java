@@ -31,6 +31,23 @@ final class BitOutputStream implements AutoCloseable {
         }
     }
 
+    /** Writes the low {@code len} bits of {@code bits}, most significant first (len 0..64). */
+    void writeBits(long bits, int len) throws IOException {
+        while (len > 0) {
+            int take = Math.min(8 - numBitsFilled, len);
+            len -= take;
+            int chunk = (int) (bits >>> len) & ((1 << take) - 1);
+            currentByte = (currentByte << take) | chunk;
+            numBitsFilled += take;
+
+            if (numBitsFilled == 8) {
+                out.write(currentByte);
+                numBitsFilled = 0;
+                currentByte = 0;
+            }
+        }
+    }
+
     void flushToByteBoundary() throws IOException {
         if (numBitsFilled == 0) return;
         // pad remaining bits with 0s
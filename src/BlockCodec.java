@@ -0,0 +1,154 @@
+import java.io.*;
+
+/**
+ * Block-based "HUFB" format: the input is cut into blocks, each with its own (scaled) code table,
+ * so a file can be compressed in one read with only one block in memory.
+ *
+ * <pre>
+ * "HUFB"
+ * repeated:  rawLen (varint, 0 ends the list)  payloadLen (varint)  payload
+ *   payload: kind (1 byte)  [frequency table if kind == KIND_NEW_TABLE]  code bits padded to a byte
+ *   kind:    KIND_NEW_TABLE, KIND_REUSE_TABLE (previous block's table) or
+ *            KIND_SHARED_TABLE (a table stored outside the block list, e.g. in a HUFA archive header)
+ * trailer:   total original length (varint)  CRC32 of the original (4 bytes)
+ * </pre>
+ */
+final class BlockCodec {
+
+    static final String MAGIC = "HUFB";
+
+    static final int KIND_NEW_TABLE = 0;
+    static final int KIND_REUSE_TABLE = 1;
+    static final int KIND_SHARED_TABLE = 2;
+
+    /** Tree and packed codes for one frequency table, built once and reused for every block that shares it. */
+    static final class Table {
+        final int[] freq;
+        final HuffmanNode root;
+        final String[] codes;
+        final int[] codeLen;
+        final long[] codeBits;
+
+        Table(int[] freq) {
+            this.freq = freq;
+            this.root = HuffmanCodec.buildTree(freq);
+            this.codes = HuffmanCodec.buildCodes(root);
+            this.codeLen = HuffmanCodec.codeLengths(codes);
+            this.codeBits = HuffmanCodec.codeBits(codes);
+        }
+    }
+
+    /** Growable, reusable byte buffer that hands out its backing array instead of copying it. */
+    static final class Buffer extends ByteArrayOutputStream {
+        Buffer(int size) {
+            super(size);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    /** Builds a table from the exact counts of one block, scaled the same way as the HUF2 header. */
+    static Table tableFor(int[] freq) {
+        return new Table(FrequencyTable.normalize(freq, FrequencyTable.SCALE_TOTAL));
+    }
+
+    /**
+     * Encodes src[off, off+len) into payload (which is reset first).
+     * @param kind KIND_NEW_TABLE to store table in the block; otherwise table must be the one the
+     *             decoder will pick for that kind (previous block's or the shared one)
+     * @return payload bytes spent on the kind byte and table, i.e. everything but code bits
+     */
+    static int encode(byte[] src, int off, int len, Table table, int kind, Buffer payload) throws IOException {
+        payload.reset();
+        payload.write(kind);
+        if (kind == KIND_NEW_TABLE) FrequencyTable.write(new DataOutputStream(payload), table.freq);
+        int headerBytes = payload.size();
+
+        BitOutputStream bitOut = new BitOutputStream(payload);
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            int b = src[i] & 0xFF;
+            if (table.codeLen[b] == 0) throw new IllegalStateException("Missing code for byte " + b);
+            bitOut.writeBits(table.codeBits[b], table.codeLen[b]);
+        }
+        bitOut.flushToByteBoundary();
+        return headerBytes;
+    }
+
+    /** @return bytes written ahead of the payload (the two length fields) */
+    static int writeRecord(DataOutputStream out, int rawLen, Buffer payload) throws IOException {
+        FrequencyTable.writeVarInt(out, rawLen);
+        FrequencyTable.writeVarInt(out, payload.size());
+        payload.writeTo(out);
+        return FrequencyTable.varIntSize(rawLen) + FrequencyTable.varIntSize(payload.size());
+    }
+
+    static void writeTrailer(DataOutputStream out, long originalLen, long crc32) throws IOException {
+        FrequencyTable.writeVarInt(out, 0);
+        FrequencyTable.writeVarInt(out, originalLen);
+        out.writeInt((int) crc32);
+    }
+
+    /** Reads a block length field and checks that a block of that size may be allocated. */
+    static int readLength(DataInputStream in, int limit) throws IOException {
+        long len = FrequencyTable.readVarLong(in);
+        if (len < 0 || len > limit) throw new IOException("Block of " + len + " bytes exceeds limit of " + limit);
+        return (int) len;
+    }
+
+    /**
+     * Decodes payload[0, payloadLen) into dst[0, rawLen).
+     * @param prev table of the previous block (null if none), used when the block reuses it
+     * @return the table this block was decoded with
+     */
+    static Table decode(byte[] payload, int payloadLen, Table prev, byte[] dst, int rawLen) throws IOException {
+        return decode(payload, payloadLen, prev, null, dst, rawLen);
+    }
+
+    /** @param shared table for KIND_SHARED_TABLE blocks, or null if the stream has none */
+    static Table decode(byte[] payload, int payloadLen, Table prev, Table shared, byte[] dst, int rawLen) throws IOException {
+        ByteArrayInputStream bin = new ByteArrayInputStream(payload, 0, payloadLen);
+        int kind = bin.read();
+
+        Table table;
+        if (kind == KIND_NEW_TABLE) {
+            table = new Table(FrequencyTable.read(new DataInputStream(bin)));
+        } else if (kind == KIND_REUSE_TABLE) {
+            if (prev == null) throw new IOException("Corrupted stream: block reuses a table that was never sent");
+            table = prev;
+        } else if (kind == KIND_SHARED_TABLE) {
+            if (shared == null) throw new IOException("Corrupted stream: block uses a shared table that does not exist");
+            table = shared;
+        } else {
+            throw new IOException("Corrupted stream: unknown block kind " + kind);
+        }
+
+        HuffmanNode root = table.root;
+        if (root == null) {
+            if (rawLen > 0) throw new IOException("Corrupted stream: empty table for non-empty block");
+            return table;
+        }
+
+        int p = payloadLen - bin.available();
+        int written = 0;
+        HuffmanNode cur = root;
+        while (written < rawLen) {
+            if (p >= payloadLen) throw new EOFException("Unexpected end of compressed block");
+            int bits = payload[p++] & 0xFF;
+            for (int shift = 7; shift >= 0 && written < rawLen; shift--) {
+                cur = ((bits >>> shift) & 1) == 0 ? cur.left : cur.right;
+                if (cur == null) throw new IOException("Corrupted stream: reached null node");
+
+                if (cur.isLeaf()) {
+                    dst[written++] = (byte) cur.byteValue;
+                    cur = root;
+                }
+            }
+        }
+        return table;
+    }
+
+    private BlockCodec() {}
+}
@@ -0,0 +1,29 @@
+/**
+ * Decides where a block stream should switch to a new code table. As the input streams past in
+ * windows, each window is compared against the block collected so far: if coding both with one
+ * shared table costs more bits than a new table's header (estimated with the same math as
+ * {@link HuffmanService#calculateBlockHeaderSize}), the window starts a new block.
+ * Only the two histograms are needed, so this adds no extra read and no extra memory.
+ */
+final class BlockSplitter {
+
+    /**
+     * The cost of sharing a table is how much the merged entropy exceeds the two parts coded on
+     * their own; it is zero when the window looks like the block and grows as the distribution shifts.
+     */
+    static boolean startsNewBlock(int[] blockFreq, int[] windowFreq) {
+        int[] merged = new int[256];
+        long windowLen = 0;
+        for (int b = 0; b < 256; b++) {
+            merged[b] = blockFreq[b] + windowFreq[b];
+            windowLen += windowFreq[b];
+        }
+
+        double sharingBits = HuffmanCodec.entropyBits(merged)
+                - HuffmanCodec.entropyBits(blockFreq) - HuffmanCodec.entropyBits(windowFreq);
+        int[] scaled = FrequencyTable.normalize(windowFreq, FrequencyTable.SCALE_TOTAL);
+        return sharingBits / 8 > HuffmanService.calculateBlockHeaderSize(scaled, windowLen);
+    }
+
+    private BlockSplitter() {}
+}
@@ -1,20 +1,103 @@
 import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 
 final class FileUtil {
 
+    // Reads 8 bytes of a byte[] as one long, so run checks compare a word at a time.
+    private static final VarHandle LONGS =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
     static int[] countFrequencies(File file) throws IOException {
         int[] freq = new int[256];
 
-        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
-            int b;
-            while ((b = in.read()) != -1) {
-                freq[b & 0xFF]++;
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                countFrequencies(buf, 0, n, freq);
+            }
+        }
+        return freq;
+    }
+
+    /**
+     * Estimates byte counts from {@code chunks} samples of {@code chunkSize} bytes, one taken from the
+     * middle of each equal slice of the file with positional reads. Files no larger than the sample
+     * total are simply counted in full.
+     */
+    static int[] sampleFrequencies(File file, int chunks, int chunkSize) throws IOException {
+        if (chunks <= 0 || chunkSize <= 0) throw new IllegalArgumentException("chunks and chunkSize must be positive");
+        long len = file.length();
+        if ((long) chunks * chunkSize >= len) return countFrequencies(file);
+
+        int[] freq = new int[256];
+        byte[] buf = new byte[chunkSize];
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        long slice = len / chunks;
+
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            for (int i = 0; i < chunks; i++) {
+                long pos = i * slice + (slice - chunkSize) / 2;
+                bb.clear();
+                while (bb.hasRemaining()) {
+                    if (ch.read(bb, pos + bb.position()) < 0) break;
+                }
+                countFrequencies(buf, 0, bb.position(), freq);
             }
         }
         return freq;
     }
 
+    /**
+     * Adds the byte counts of buf[off, off+len) to freq.
+     * A chunk that is one repeated byte is counted in a single step; anything else is
+     * spread over four interleaved tables so runs of equal bytes don't stall on one counter.
+     */
+    static void countFrequencies(byte[] buf, int off, int len, int[] freq) {
+        if (len <= 0) return;
+        if (isRun(buf, off, len)) {
+            freq[buf[off] & 0xFF] += len;
+            return;
+        }
+
+        int[] c = new int[4 * 256];
+        int end = off + len;
+        int i = off;
+        for (; i + 4 <= end; i += 4) {
+            c[buf[i] & 0xFF]++;
+            c[256 + (buf[i + 1] & 0xFF)]++;
+            c[512 + (buf[i + 2] & 0xFF)]++;
+            c[768 + (buf[i + 3] & 0xFF)]++;
+        }
+        for (; i < end; i++) c[buf[i] & 0xFF]++;
+
+        for (int b = 0; b < 256; b++) {
+            freq[b] += c[b] + c[256 + b] + c[512 + b] + c[768 + b];
+        }
+    }
+
+    /** @return true if buf[off, off+len) holds a single repeated byte value */
+    static boolean isRun(byte[] buf, int off, int len) {
+        if (len <= 0) return false;
+        byte first = buf[off];
+        long pattern = (first & 0xFFL) * 0x0101010101010101L;
+        int end = off + len;
+        int i = off;
+        for (; i + 8 <= end; i += 8) {
+            if ((long) LONGS.get(buf, i) != pattern) return false;
+        }
+        for (; i < end; i++) {
+            if (buf[i] != first) return false;
+        }
+        return true;
+    }
+
     static long fileLength(File file) {
         return file.length();
     }
@@ -48,11 +131,25 @@ final class FileUtil {
             int n;
             while ((n = in.read(buf)) != -1) md.update(buf, 0, n);
         }
-        byte[] dig = md.digest();
+        return toHex(md.digest());
+    }
+
+    static String toHex(byte[] bytes) {
         StringBuilder sb = new StringBuilder();
-        for (byte x : dig) sb.append(String.format("%02x", x));
+        for (byte x : bytes) sb.append(String.format("%02x", x));
         return sb.toString();
     }
 
+    /** Reads until buf[off, off+len) is full or the stream ends; @return bytes read (0 at end of stream) */
+    static int readFully(InputStream in, byte[] buf, int off, int len) throws IOException {
+        int total = 0;
+        while (total < len) {
+            int n = in.read(buf, off + total, len - total);
+            if (n == -1) break;
+            total += n;
+        }
+        return total;
+    }
+
     private FileUtil() {}
 }
@@ -0,0 +1,114 @@
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compact frequency table used by the "HUF2" header.
+ * Only relative magnitudes matter for building the tree, so counts are scaled to a fixed
+ * total and stored as varints behind a 256-bit presence bitmap instead of (byte, int) pairs.
+ */
+final class FrequencyTable {
+
+    static final int SCALE_TOTAL = 1 << 12;
+    static final int BITMAP_BYTES = 256 / 8;
+
+    /**
+     * Scale counts so they sum to exactly {@code total} (which must be at least 256).
+     * Every present byte keeps a count of at least 1, and a more frequent byte never ends up
+     * with a smaller count than a less frequent one.
+     */
+    static int[] normalize(int[] freq, int total) {
+        int[] scaled = new int[256];
+        long sum = 0;
+        int present = 0;
+        for (int b = 0; b < 256; b++) {
+            if (freq[b] <= 0) continue;
+            sum += freq[b];
+            present++;
+        }
+        if (sum == 0) return scaled;
+
+        // Reserve 1 per present byte, then share out the rest in proportion, rounding down
+        long spare = total - present;
+        long scaledSum = 0;
+        for (int b = 0; b < 256; b++) {
+            if (freq[b] <= 0) continue;
+            scaled[b] = (int) (1 + (long) freq[b] * spare / sum);
+            scaledSum += scaled[b];
+        }
+
+        // Rounding leaves fewer than one unit per present byte; hand it out most frequent first
+        Integer[] order = new Integer[256];
+        for (int b = 0; b < 256; b++) order[b] = b;
+        Arrays.sort(order, (x, y) -> Integer.compare(freq[y], freq[x]));
+        for (int i = 0; scaledSum < total; i++) {
+            scaled[order[i]]++;
+            scaledSum++;
+        }
+        return scaled;
+    }
+
+    static void write(DataOutputStream out, int[] freq) throws IOException {
+        byte[] bitmap = new byte[BITMAP_BYTES];
+        for (int b = 0; b < 256; b++) {
+            if (freq[b] > 0) bitmap[b >>> 3] |= (byte) (0x80 >>> (b & 7));
+        }
+        out.write(bitmap);
+        for (int b = 0; b < 256; b++) {
+            if (freq[b] > 0) writeVarInt(out, freq[b]);
+        }
+    }
+
+    static int[] read(DataInput in) throws IOException {
+        byte[] bitmap = new byte[BITMAP_BYTES];
+        in.readFully(bitmap);
+        int[] freq = new int[256];
+        for (int b = 0; b < 256; b++) {
+            if ((bitmap[b >>> 3] & (0x80 >>> (b & 7))) != 0) {
+                freq[b] = (int) readVarLong(in);
+                if (freq[b] <= 0) throw new IOException("Corrupted frequency table at byte " + b);
+            }
+        }
+        return freq;
+    }
+
+    /** Bytes taken by {@link #write} for this table. */
+    static int size(int[] freq) {
+        int size = BITMAP_BYTES;
+        for (int b = 0; b < 256; b++) {
+            if (freq[b] > 0) size += varIntSize(freq[b]);
+        }
+        return size;
+    }
+
+    /** Unsigned LEB128: 7 bits per byte, high bit set on every byte but the last. */
+    static void writeVarInt(DataOutputStream out, long v) throws IOException {
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    static int varIntSize(long v) {
+        int size = 1;
+        while ((v & ~0x7FL) != 0) {
+            v >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private FrequencyTable() {}
+}
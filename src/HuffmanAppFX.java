@@ -20,6 +20,9 @@ public class HuffmanAppFX extends Application {
     private final TextArea headerArea = new TextArea();
     private final TextArea logArea = new TextArea();
 
+    private final CheckBox compactHeaderBox = new CheckBox("Compact header (scaled frequencies)");
+    private final ComboBox<String> levelBox = new ComboBox<>();
+
     private final ObservableList<CodeRowFX> tableData = FXCollections.observableArrayList();
     private TableView<CodeRowFX> table;
 
@@ -45,7 +48,18 @@ public class HuffmanAppFX extends Application {
         Button decompressBtn = new Button("Decompress");
         compressBtn.setOnAction(e -> runCompress(stage));
         decompressBtn.setOnAction(e -> runDecompress(stage));
-        btnRow.getChildren().addAll(compressBtn, decompressBtn);
+
+        // Index 0 is the classic single-table format; index N is level N
+        levelBox.getItems().add("Classic");
+        for (int level = HuffmanService.MIN_LEVEL; level <= HuffmanService.MAX_LEVEL; level++) {
+            String hint = (level == HuffmanService.MIN_LEVEL) ? " - fastest" : (level == HuffmanService.MAX_LEVEL) ? " - smallest" : "";
+            levelBox.getItems().add("Level " + level + hint);
+        }
+        levelBox.getSelectionModel().select(0);
+        // Levels pick their own header format
+        levelBox.setOnAction(e -> compactHeaderBox.setDisable(levelBox.getSelectionModel().getSelectedIndex() != 0));
+
+        btnRow.getChildren().addAll(new Label("Level:"), levelBox, compactHeaderBox, compressBtn, decompressBtn);
 
         // Table
         table = buildTable();
@@ -177,13 +191,25 @@ public class HuffmanAppFX extends Application {
 
         try {
             // --- same logic you had in Swing ---
-            HuffmanService.CompressionResult r = HuffmanService.compress(in, out);
-
-            appendLog("Created Huffman tree + encoding table.");
+            int level = levelBox.getSelectionModel().getSelectedIndex();
+            HuffmanService.CompressionResult r = (level == 0)
+                    ? HuffmanService.compress(in, out, compactHeaderBox.isSelected())
+                    : HuffmanService.compressAtLevel(in, out, level);
+
+            if (r.level > 0) appendLog("Compression level: " + r.level);
+            if (r.exactFreq != null) {
+                appendLog("Frequencies estimated from samples (ratio loss vs. exact count: "
+                        + String.format("%.2f", r.ratioLoss * 100) + "%)");
+            }
+            if (r.blocks > 0) {
+                appendLog("Created " + r.blocks + " blocks, each with its own Huffman tree + encoding table.");
+            } else {
+                appendLog("Created Huffman tree + encoding table.");
+            }
             appendLog("Encoded and wrote compressed file: " + out.getAbsolutePath());
             appendLog("Original size:   " + r.originalLen + " bytes");
             
-            int headerSize = HuffmanService.calculateHeaderSize(r.freq);
+            long headerSize = r.headerLen;
             long compressedDataSize = r.compressedLen - headerSize;
             double compressionRatio = (double) r.compressedLen / r.originalLen;
             
@@ -197,7 +223,7 @@ public class HuffmanAppFX extends Application {
             }
 
             fillCodeTable(r.freq, r.codes);
-            headerArea.setText(HuffmanService.buildHeaderDisplay(r.freq, r.codes, r.originalLen));
+            headerArea.setText(HuffmanService.buildHeaderDisplay(r.freq, r.codes, r.originalLen, r.scaledHeader, r.blocks));
         } catch (Exception ex) {
             appendLog("ERROR: " + ex.getMessage());
             showError(stage, ex);
@@ -220,7 +246,7 @@ public class HuffmanAppFX extends Application {
             String[] codes = HuffmanCodec.buildCodes(root);
 
             fillCodeTable(r.freq, codes);
-            headerArea.setText(HuffmanService.buildHeaderDisplay(r.freq, codes, r.originalLen));
+            headerArea.setText(HuffmanService.buildHeaderDisplay(r.freq, codes, r.originalLen, r.scaledHeader, r.blocks));
 
             appendLog("Decoded file written: " + decoded.getAbsolutePath());
             appendLog("Decoded bytes: " + r.decodedLen + " / expected: " + r.originalLen);
@@ -0,0 +1,255 @@
+import java.io.*;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Multi-file "HUFA" container: many entries in one file, with a central directory at the end so a
+ * single entry can be listed or extracted by seeking straight to it.
+ *
+ * <pre>
+ * "HUFA"  shared-table flag (1 byte)  [frequency table if the flag is 1]
+ * entry data: HUFB block records for each entry, each list ended by a 0 length
+ * directory:  entry count (varint), then per entry: name (UTF), originalLen, compressedLen, offset (varints), CRC32 (4 bytes)
+ * footer:     directory offset (8 bytes)  "HUFA"
+ * </pre>
+ *
+ * With a shared table, blocks that only use bytes the table covers store no table of their own;
+ * they are marked {@link BlockCodec#KIND_SHARED_TABLE}, so they decode correctly even after a block
+ * that had to carry its own table.
+ */
+final class HuffmanArchive {
+
+    static final String MAGIC = "HUFA";
+    static final int FOOTER_SIZE = 8 + 4;
+    static final int BLOCK_SIZE = 1024 * 1024;
+    /** Names are stored with writeUTF, whose length prefix is an unsigned short. */
+    static final int MAX_NAME_BYTES = 0xFFFF;
+
+    static final class Entry {
+        final String name;
+        final long originalLen;
+        final long compressedLen;
+        final long offset;
+        final long crc32;
+
+        Entry(String name, long originalLen, long compressedLen, long offset, long crc32) {
+            this.name = name;
+            this.originalLen = originalLen;
+            this.compressedLen = compressedLen;
+            this.offset = offset;
+            this.crc32 = crc32;
+        }
+    }
+
+    static final class Writer implements AutoCloseable {
+        private final CountingOutputStream counter;
+        private final DataOutputStream out;
+        private final BlockCodec.Table shared;
+        private final List<Entry> entries = new ArrayList<>();
+        private final Set<String> names = new HashSet<>();
+        private final byte[] block = new byte[BLOCK_SIZE];
+        private final BlockCodec.Buffer payload = new BlockCodec.Buffer(BLOCK_SIZE);
+
+        Writer(File archive) throws IOException {
+            this(archive, null);
+        }
+
+        /** @param sharedFreq counts to build one code table shared by all entries, or null for per-entry tables */
+        Writer(File archive, int[] sharedFreq) throws IOException {
+            counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(archive)));
+            out = new DataOutputStream(counter);
+            shared = (sharedFreq == null) ? null : BlockCodec.tableFor(sharedFreq);
+
+            out.writeBytes(MAGIC);
+            out.writeByte(shared == null ? 0 : 1);
+            if (shared != null) FrequencyTable.write(out, shared.freq);
+        }
+
+        Entry add(String name, File file) throws IOException {
+            if (names.contains(name)) throw new IllegalArgumentException("Duplicate entry name: " + name);
+            if (utfLength(name) > MAX_NAME_BYTES) {
+                throw new IllegalArgumentException("Entry name longer than " + MAX_NAME_BYTES + " bytes: " + name.substring(0, 64) + "...");
+            }
+
+            long offset = counter.count;
+            long originalLen = 0;
+            CRC32 crc = new CRC32();
+
+            try (InputStream in = new FileInputStream(file)) {
+                int n;
+                while ((n = FileUtil.readFully(in, block, 0, BLOCK_SIZE)) > 0) {
+                    crc.update(block, 0, n);
+                    int[] freq = new int[256];
+                    FileUtil.countFrequencies(block, 0, n, freq);
+
+                    // Fall back to the block's own table when it holds a byte the shared table has no code for
+                    boolean useShared = shared != null && covers(shared, freq);
+                    if (useShared) {
+                        BlockCodec.encode(block, 0, n, shared, BlockCodec.KIND_SHARED_TABLE, payload);
+                    } else {
+                        BlockCodec.encode(block, 0, n, BlockCodec.tableFor(freq), BlockCodec.KIND_NEW_TABLE, payload);
+                    }
+                    BlockCodec.writeRecord(out, n, payload);
+                    originalLen += n;
+                }
+            }
+            FrequencyTable.writeVarInt(out, 0);
+
+            Entry e = new Entry(name, originalLen, counter.count - offset, offset, crc.getValue());
+            entries.add(e);
+            names.add(name);
+            return e;
+        }
+
+        List<Entry> entries() {
+            return Collections.unmodifiableList(entries);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                long directoryOffset = counter.count;
+                FrequencyTable.writeVarInt(out, entries.size());
+                for (Entry e : entries) {
+                    out.writeUTF(e.name);
+                    FrequencyTable.writeVarInt(out, e.originalLen);
+                    FrequencyTable.writeVarInt(out, e.compressedLen);
+                    FrequencyTable.writeVarInt(out, e.offset);
+                    out.writeInt((int) e.crc32);
+                }
+                out.writeLong(directoryOffset);
+                out.writeBytes(MAGIC);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /** Sums the byte counts of several files, e.g. to build a shared table for {@link Writer}. */
+    static int[] countFrequencies(List<File> files) throws IOException {
+        int[] total = new int[256];
+        for (File f : files) HuffmanStream.addCounts(total, FileUtil.countFrequencies(f));
+        return total;
+    }
+
+    static List<Entry> list(File archive) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(archive, "r")) {
+            return readDirectory(raf);
+        }
+    }
+
+    /** Extracts one entry by seeking straight to its data; length and CRC32 are verified. */
+    static Entry extract(File archive, String name, File output) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(archive, "r")) {
+            Entry entry = null;
+            for (Entry e : readDirectory(raf)) {
+                if (e.name.equals(name)) entry = e;
+            }
+            if (entry == null) throw new FileNotFoundException("No entry named " + name + " in " + archive);
+
+            raf.seek(MAGIC.length());
+            BlockCodec.Table shared = (raf.readByte() == 1) ? new BlockCodec.Table(FrequencyTable.read(raf)) : null;
+            BlockCodec.Table table = null;
+
+            raf.seek(entry.offset);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(raf.getChannel())));
+            CRC32 crc = new CRC32();
+            long written = 0;
+            byte[] block = new byte[0];
+            byte[] payload = new byte[0];
+
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+                int rawLen;
+                while ((rawLen = BlockCodec.readLength(in, BLOCK_SIZE)) > 0) {
+                    int payloadLen = BlockCodec.readLength(in, HuffmanStream.payloadLimitFor(BLOCK_SIZE));
+                    if (payload.length < payloadLen) payload = new byte[payloadLen];
+                    if (block.length < rawLen) block = new byte[rawLen];
+                    in.readFully(payload, 0, payloadLen);
+
+                    table = BlockCodec.decode(payload, payloadLen, table, shared, block, rawLen);
+                    crc.update(block, 0, rawLen);
+                    out.write(block, 0, rawLen);
+                    written += rawLen;
+                }
+            }
+
+            if (written != entry.originalLen) {
+                throw new IOException("Length mismatch for " + name + ": decoded " + written + " bytes, expected " + entry.originalLen);
+            }
+            if (crc.getValue() != entry.crc32) throw new IOException("CRC32 mismatch for " + name);
+            return entry;
+        }
+    }
+
+    private static List<Entry> readDirectory(RandomAccessFile raf) throws IOException {
+        if (raf.length() < MAGIC.length() + 1 + FOOTER_SIZE) throw new IOException("Not a Huffman archive (too short)");
+
+        byte[] magicBytes = new byte[4];
+        raf.seek(raf.length() - FOOTER_SIZE);
+        long directoryOffset = raf.readLong();
+        raf.readFully(magicBytes);
+        String magic = new String(magicBytes);
+        if (!MAGIC.equals(magic)) throw new IOException("Not a Huffman archive (bad footer): " + magic);
+
+        raf.seek(directoryOffset);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(raf.getChannel())));
+        long count = FrequencyTable.readVarLong(in);
+        List<Entry> entries = new ArrayList<>();
+        for (long i = 0; i < count; i++) {
+            String name = in.readUTF();
+            long originalLen = FrequencyTable.readVarLong(in);
+            long compressedLen = FrequencyTable.readVarLong(in);
+            long offset = FrequencyTable.readVarLong(in);
+            long crc32 = in.readInt() & 0xFFFFFFFFL;
+            entries.add(new Entry(name, originalLen, compressedLen, offset, crc32));
+        }
+        return entries;
+    }
+
+    /** @return true if every byte counted in freq has a code in table */
+    private static boolean covers(BlockCodec.Table table, int[] freq) {
+        for (int b = 0; b < 256; b++) {
+            if (freq[b] > 0 && table.codeLen[b] == 0) return false;
+        }
+        return true;
+    }
+
+    /** @return length of s in the modified UTF-8 that {@link DataOutputStream#writeUTF} writes */
+    private static long utfLength(String s) {
+        long len = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            len += (c >= 0x0001 && c <= 0x007F) ? 1 : (c <= 0x07FF) ? 2 : 3;
+        }
+        return len;
+    }
+
+    /** Tracks how many bytes went out, so entry offsets are known without asking the file. */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    private HuffmanArchive() {}
+}
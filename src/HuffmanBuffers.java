@@ -0,0 +1,165 @@
+import java.io.*;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+
+/**
+ * In-memory entry points for callers holding {@link ByteBuffer}s or {@link MemorySegment}s
+ * (heap or off-heap, e.g. Netty direct buffers). Data is read and written in place, with no
+ * copy onto the heap and no temp files. Output is a regular "HUF2" stream, and both HUF1 and
+ * HUF2 can be decoded, so results interoperate with the file-based {@link HuffmanService}.
+ */
+final class HuffmanBuffers {
+
+    /** Largest possible HUF1 header: magic + length + count + 256 (byte, int) pairs. */
+    static final int MAX_HEADER_SIZE = 4 + 8 + 4 + 256 * 5;
+
+    /**
+     * Compresses all of src into dst starting at offset 0.
+     * @return number of bytes written to dst
+     * @throws IllegalArgumentException if src is larger than Integer.MAX_VALUE bytes (counts are ints)
+     *                                  or dst is too small; nothing is written in that case
+     */
+    static long compress(MemorySegment src, MemorySegment dst) throws IOException {
+        long originalLen = src.byteSize();
+        if (originalLen > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Source too large: " + originalLen + " bytes, at most " + Integer.MAX_VALUE);
+        }
+        int[] counts = new int[256];
+        for (long i = 0; i < originalLen; i++) {
+            counts[src.get(ValueLayout.JAVA_BYTE, i) & 0xFF]++;
+        }
+
+        int[] freq = FrequencyTable.normalize(counts, FrequencyTable.SCALE_TOTAL);
+        String[] codes = HuffmanCodec.buildCodes(HuffmanCodec.buildTree(freq));
+        int[] codeLen = HuffmanCodec.codeLengths(codes);
+        long[] codeBits = HuffmanCodec.codeBits(codes);
+
+        // Header is small and bounded, so it is built on the heap with the same code as the file format
+        ByteArrayOutputStream header = new ByteArrayOutputStream(MAX_HEADER_SIZE);
+        DataOutputStream headerOut = new DataOutputStream(header);
+        headerOut.writeBytes(HuffmanService.MAGIC_SCALED);
+        FrequencyTable.writeVarInt(headerOut, originalLen);
+        FrequencyTable.write(headerOut, freq);
+
+        long needed = header.size() + (HuffmanCodec.encodedBits(counts, codeLen) + 7) / 8;
+        if (dst.byteSize() < needed) {
+            throw new IllegalArgumentException("Destination too small: need " + needed + " bytes, have " + dst.byteSize());
+        }
+
+        MemorySegment.copy(header.toByteArray(), 0, dst, ValueLayout.JAVA_BYTE, 0, header.size());
+        SegmentBitOutput bitOut = new SegmentBitOutput(dst, header.size());
+        for (long i = 0; i < originalLen; i++) {
+            int b = src.get(ValueLayout.JAVA_BYTE, i) & 0xFF;
+            if (codeLen[b] == 0) throw new IllegalStateException("Missing code for byte " + b);
+            bitOut.writeBits(codeBits[b], codeLen[b]);
+        }
+        bitOut.flushToByteBoundary();
+        return bitOut.position();
+    }
+
+    /** @return the original length stored in a compressed segment's header, to size the destination */
+    static long decompressedSize(MemorySegment src) throws IOException {
+        return readHeader(src).originalLen;
+    }
+
+    /**
+     * Decompresses src into dst starting at offset 0.
+     * @return number of bytes written to dst
+     * @throws IllegalArgumentException if dst is too small for the original data
+     */
+    static long decompress(MemorySegment src, MemorySegment dst) throws IOException {
+        Header h = readHeader(src);
+        decode(h, src, dst);
+        return h.originalLen;
+    }
+
+    /** @return number of bytes of src taken up by the stream (header and code bits) */
+    private static long decode(Header h, MemorySegment src, MemorySegment dst) throws IOException {
+        if (dst.byteSize() < h.originalLen) {
+            throw new IllegalArgumentException("Destination too small: need " + h.originalLen + " bytes, have " + dst.byteSize());
+        }
+
+        HuffmanNode root = HuffmanCodec.buildTree(h.freq);
+        if (root == null) return h.size;
+
+        SegmentBitInput bitIn = new SegmentBitInput(src, h.size);
+        long written = 0;
+        HuffmanNode cur = root;
+        while (written < h.originalLen) {
+            int bit = bitIn.readBit();
+            if (bit == -1) throw new EOFException("Unexpected end of compressed bit stream");
+            cur = (bit == 0) ? cur.left : cur.right;
+            if (cur == null) throw new IOException("Corrupted stream: reached null node");
+
+            if (cur.isLeaf()) {
+                dst.set(ValueLayout.JAVA_BYTE, written++, (byte) cur.byteValue);
+                cur = root;
+            }
+        }
+        return bitIn.position();
+    }
+
+    /**
+     * Compresses src's remaining bytes into dst at its position. Both positions are advanced,
+     * as with the usual ByteBuffer bulk operations.
+     */
+    static int compress(ByteBuffer src, ByteBuffer dst) throws IOException {
+        int n = (int) compress(MemorySegment.ofBuffer(src), MemorySegment.ofBuffer(dst));
+        src.position(src.limit());
+        dst.position(dst.position() + n);
+        return n;
+    }
+
+    /**
+     * Decompresses one stream from src's position into dst at its position. src is advanced only
+     * past the bytes that stream takes up, so several streams can be read back to back from one buffer.
+     */
+    static int decompress(ByteBuffer src, ByteBuffer dst) throws IOException {
+        MemorySegment in = MemorySegment.ofBuffer(src);
+        Header h = readHeader(in);
+        long consumed = decode(h, in, MemorySegment.ofBuffer(dst));
+        int n = (int) h.originalLen;
+        src.position(src.position() + (int) consumed);
+        dst.position(dst.position() + n);
+        return n;
+    }
+
+    private static final class Header {
+        final int[] freq;
+        final long originalLen;
+        final int size;
+
+        Header(int[] freq, long originalLen, int size) {
+            this.freq = freq;
+            this.originalLen = originalLen;
+            this.size = size;
+        }
+    }
+
+    private static Header readHeader(MemorySegment src) throws IOException {
+        byte[] bytes = new byte[(int) Math.min(src.byteSize(), MAX_HEADER_SIZE)];
+        MemorySegment.copy(src, ValueLayout.JAVA_BYTE, 0, bytes, 0, bytes.length);
+        ByteArrayInputStream bin = new ByteArrayInputStream(bytes);
+        DataInputStream headerIn = new DataInputStream(bin);
+
+        byte[] magicBytes = new byte[4];
+        headerIn.readFully(magicBytes);
+        String magic = new String(magicBytes);
+
+        int[] freq;
+        long originalLen;
+        if (HuffmanService.MAGIC.equals(magic)) {
+            originalLen = headerIn.readLong();
+            freq = HuffmanService.readRawFrequencies(headerIn);
+        } else if (HuffmanService.MAGIC_SCALED.equals(magic)) {
+            originalLen = FrequencyTable.readVarLong(headerIn);
+            freq = FrequencyTable.read(headerIn);
+        } else {
+            throw new IOException("Not a Huffman stream (bad magic): " + magic);
+        }
+        return new Header(freq, originalLen, bytes.length - bin.available());
+    }
+
+    private HuffmanBuffers() {}
+}
@@ -36,6 +36,51 @@ final class HuffmanCodec {
         return codes;
     }
 
+    /** Code lengths per byte value (0 = byte has no code). */
+    static int[] codeLengths(String[] codes) {
+        int[] lengths = new int[256];
+        for (int b = 0; b < 256; b++) {
+            if (codes[b] == null) continue;
+            if (codes[b].length() > 64) throw new IllegalStateException("Code too long for byte " + b);
+            lengths[b] = codes[b].length();
+        }
+        return lengths;
+    }
+
+    /** Codes packed into the low bits of a long, so encoding can emit a whole code at once. */
+    static long[] codeBits(String[] codes) {
+        long[] bits = new long[256];
+        for (int b = 0; b < 256; b++) {
+            if (codes[b] == null) continue;
+            long v = 0;
+            for (int i = 0; i < codes[b].length(); i++) {
+                v = (v << 1) | (codes[b].charAt(i) == '1' ? 1 : 0);
+            }
+            bits[b] = v;
+        }
+        return bits;
+    }
+
+    /** Total code bits needed to encode the given counts with the given code lengths. */
+    static long encodedBits(int[] freq, int[] codeLen) {
+        long bits = 0;
+        for (int b = 0; b < 256; b++) bits += (long) freq[b] * codeLen[b];
+        return bits;
+    }
+
+    /** Shannon bound for coding these counts with their own ideal code: sum of f * log2(n / f) bits. */
+    static double entropyBits(int[] freq) {
+        long n = 0;
+        for (int b = 0; b < 256; b++) n += freq[b];
+        if (n == 0) return 0;
+
+        double bits = 0;
+        for (int b = 0; b < 256; b++) {
+            if (freq[b] > 0) bits += freq[b] * (Math.log((double) n / freq[b]) / Math.log(2));
+        }
+        return bits;
+    }
+
     private static void dfs(HuffmanNode node, String path, String[] codes) {
         if (node == null) return;
 
@@ -0,0 +1,241 @@
+import java.io.*;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/**
+ * Pipelined variant of {@link HuffmanStream}: reading, coding and writing run on separate threads
+ * so I/O waits and encoding overlap. Stages hand reusable block slots to each other through bounded
+ * queues; the reader blocks once every slot is in flight, which gives backpressure for free.
+ * Produces and accepts exactly the same "HUFB" files as {@link HuffmanStream}.
+ */
+final class HuffmanPipeline {
+
+    static final int DEFAULT_DEPTH = 4;
+
+    /** Buffers for one block. Slots circulate reader -> coder -> writer -> back to the reader. */
+    private static final class Slot {
+        byte[] raw;
+        int rawLen;
+        final BlockCodec.Buffer payload; // compress: encoded block
+        byte[] packed;                   // decompress: encoded block as read
+        int packedLen;
+        int heldBytes;                   // decompress: share of the heap budget taken for raw + packed
+        int headerBytes;
+        final int[] freq = new int[256];
+
+        /** @param blockSize 0 for decompress slots, whose buffers are allocated per block */
+        Slot(int blockSize) {
+            raw = new byte[blockSize];
+            payload = new BlockCodec.Buffer(blockSize == 0 ? 0 : HuffmanStream.payloadLimitFor(blockSize));
+        }
+    }
+
+    /** Marks the end of the block sequence; always sent downstream, even when a stage fails. */
+    private static final Slot END = new Slot(0);
+
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    static HuffmanStream.StreamResult compress(File input, File output) throws Exception {
+        return compress(input, output, HuffmanStream.DEFAULT_HEAP_BUDGET, DEFAULT_DEPTH);
+    }
+
+    /**
+     * @param depth number of block slots in flight; the heap budget is split between them, and each
+     *              slot's payload buffer is preallocated at the worst case so it never grows
+     */
+    static HuffmanStream.StreamResult compress(File input, File output, long heapBudget, int depth) throws Exception {
+        if (depth < 2) throw new IllegalArgumentException("depth must be at least 2");
+        int blockSize = Math.min(HuffmanStream.blockSizeFor(heapBudget / depth), HuffmanStream.MAX_COMPRESS_BLOCK_SIZE);
+
+        BlockingQueue<Slot> free = new ArrayBlockingQueue<>(depth + 1);
+        BlockingQueue<Slot> toCode = new ArrayBlockingQueue<>(depth + 1);
+        BlockingQueue<Slot> toWrite = new ArrayBlockingQueue<>(depth + 1);
+        for (int i = 0; i < depth; i++) free.add(new Slot(blockSize));
+
+        CRC32 crc = new CRC32();
+        MessageDigest inSha = MessageDigest.getInstance("SHA-256");
+        MessageDigest outSha = MessageDigest.getInstance("SHA-256");
+        int[] totalFreq = new int[256];
+        long originalLen = 0;
+        long overheadLen = 0;
+        int blocks = 0;
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try (InputStream in = new FileInputStream(input);
+             DataOutputStream out = new DataOutputStream(new DigestOutputStream(
+                     new BufferedOutputStream(new FileOutputStream(output)), outSha))) {
+
+            Future<?> reader = pool.submit(stage(() -> {
+                while (true) {
+                    Slot s = free.take();
+                    s.rawLen = FileUtil.readFully(in, s.raw, 0, blockSize);
+                    if (s.rawLen == 0) return;
+                    crc.update(s.raw, 0, s.rawLen);
+                    inSha.update(s.raw, 0, s.rawLen);
+                    toCode.put(s);
+                }
+            }, toCode));
+
+            Future<?> coder = pool.submit(stage(() -> {
+                Slot s;
+                while ((s = toCode.take()) != END) {
+                    Arrays.fill(s.freq, 0);
+                    FileUtil.countFrequencies(s.raw, 0, s.rawLen, s.freq);
+                    s.headerBytes = BlockCodec.encode(s.raw, 0, s.rawLen, BlockCodec.tableFor(s.freq), BlockCodec.KIND_NEW_TABLE, s.payload);
+                    toWrite.put(s);
+                }
+            }, toWrite));
+
+            // Writer stage runs on the calling thread
+            out.writeBytes(BlockCodec.MAGIC);
+            Slot s;
+            while ((s = toWrite.take()) != END) {
+                overheadLen += s.headerBytes + BlockCodec.writeRecord(out, s.rawLen, s.payload);
+                HuffmanStream.addCounts(totalFreq, s.freq);
+                originalLen += s.rawLen;
+                blocks++;
+                free.put(s);
+            }
+            // Coder first: if it failed, the reader may still be parked waiting for a free slot
+            await(coder);
+            await(reader);
+
+            BlockCodec.writeTrailer(out, originalLen, crc.getValue());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        overheadLen += BlockCodec.MAGIC.length() + 1 + FrequencyTable.varIntSize(originalLen) + 4;
+        return new HuffmanStream.StreamResult(totalFreq, originalLen, output.length(), blocks, overheadLen, crc.getValue(),
+                FileUtil.toHex(inSha.digest()), FileUtil.toHex(outSha.digest()));
+    }
+
+    static HuffmanStream.StreamResult decompress(File compressed, File outputDecoded) throws Exception {
+        return decompress(compressed, outputDecoded, HuffmanStream.DEFAULT_HEAP_BUDGET, DEFAULT_DEPTH);
+    }
+
+    /**
+     * Accepts the same largest block as {@link HuffmanStream#decompress(File, File, long)} for the same
+     * budget, so files from either compressor decode here. The reader takes each block's raw + encoded
+     * size from the budget before allocating and the writer gives it back, so at most {@code depth}
+     * blocks are in flight and fewer when they are large; one largest block alone fills the budget.
+     */
+    static HuffmanStream.StreamResult decompress(File compressed, File outputDecoded, long heapBudget, int depth) throws Exception {
+        if (depth < 2) throw new IllegalArgumentException("depth must be at least 2");
+        int blockLimit = HuffmanStream.blockSizeFor(heapBudget);
+        int payloadLimit = HuffmanStream.payloadLimitFor(blockLimit);
+        // Below the minimum block size a largest block is bigger than the budget; it may still go through alone
+        int budgetBytes = (int) Math.min(Integer.MAX_VALUE, Math.max(heapBudget, (long) blockLimit + payloadLimit));
+        Semaphore budget = new Semaphore(budgetBytes);
+
+        BlockingQueue<Slot> free = new ArrayBlockingQueue<>(depth + 1);
+        BlockingQueue<Slot> toCode = new ArrayBlockingQueue<>(depth + 1);
+        BlockingQueue<Slot> toWrite = new ArrayBlockingQueue<>(depth + 1);
+        for (int i = 0; i < depth; i++) free.add(new Slot(0));
+
+        CRC32 crc = new CRC32();
+        MessageDigest inSha = MessageDigest.getInstance("SHA-256");
+        MessageDigest outSha = MessageDigest.getInstance("SHA-256");
+        int[] totalFreq = new int[256];
+        long[] trailer = new long[2]; // original length, CRC32 as stored by the encoder
+        long originalLen = 0;
+        int blocks = 0;
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try (DataInputStream in = new DataInputStream(new DigestInputStream(
+                     new BufferedInputStream(new FileInputStream(compressed)), inSha));
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(outputDecoded))) {
+
+            byte[] magicBytes = new byte[4];
+            in.readFully(magicBytes);
+            String magic = new String(magicBytes);
+            if (!BlockCodec.MAGIC.equals(magic)) throw new IOException("Not a block Huffman file (bad magic): " + magic);
+
+            Future<?> reader = pool.submit(stage(() -> {
+                int rawLen;
+                while ((rawLen = BlockCodec.readLength(in, blockLimit)) > 0) {
+                    int packedLen = BlockCodec.readLength(in, payloadLimit);
+                    Slot s = free.take();
+                    s.heldBytes = (int) Math.min(budgetBytes, (long) rawLen + packedLen);
+                    budget.acquire(s.heldBytes);
+                    s.raw = new byte[rawLen];
+                    s.packed = new byte[packedLen];
+                    in.readFully(s.packed, 0, packedLen);
+                    s.packedLen = packedLen;
+                    s.rawLen = rawLen;
+                    toCode.put(s);
+                }
+                trailer[0] = FrequencyTable.readVarLong(in);
+                trailer[1] = in.readInt() & 0xFFFFFFFFL;
+            }, toCode));
+
+            Future<?> coder = pool.submit(stage(() -> {
+                BlockCodec.Table table = null;
+                Slot s;
+                while ((s = toCode.take()) != END) {
+                    table = BlockCodec.decode(s.packed, s.packedLen, table, s.raw, s.rawLen);
+                    Arrays.fill(s.freq, 0);
+                    FileUtil.countFrequencies(s.raw, 0, s.rawLen, s.freq);
+                    crc.update(s.raw, 0, s.rawLen);
+                    outSha.update(s.raw, 0, s.rawLen);
+                    toWrite.put(s);
+                }
+            }, toWrite));
+
+            Slot s;
+            while ((s = toWrite.take()) != END) {
+                out.write(s.raw, 0, s.rawLen);
+                HuffmanStream.addCounts(totalFreq, s.freq);
+                originalLen += s.rawLen;
+                blocks++;
+                s.raw = null;
+                s.packed = null;
+                budget.release(s.heldBytes);
+                free.put(s);
+            }
+            await(coder);
+            await(reader);
+
+            if (trailer[0] != originalLen) {
+                throw new IOException("Length mismatch: decoded " + originalLen + " bytes, expected " + trailer[0]);
+            }
+            if (trailer[1] != crc.getValue()) throw new IOException("CRC32 mismatch: decoded data is corrupted");
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return new HuffmanStream.StreamResult(totalFreq, originalLen, compressed.length(), blocks, -1, crc.getValue(),
+                FileUtil.toHex(outSha.digest()), FileUtil.toHex(inSha.digest()));
+    }
+
+    /** Wraps a stage so END reaches the next stage however this one finishes. */
+    private static Callable<Void> stage(Stage body, BlockingQueue<Slot> downstream) {
+        return () -> {
+            try {
+                body.run();
+            } finally {
+                downstream.put(END);
+            }
+            return null;
+        };
+    }
+
+    /** Waits for a stage and rethrows its failure as the original exception. */
+    private static void await(Future<?> stage) throws Exception {
+        try {
+            stage.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw e;
+        }
+    }
+
+    private HuffmanPipeline() {}
+}
@@ -5,11 +5,88 @@ import java.util.List;
 final class HuffmanService {
 
     static final String MAGIC = "HUF1";
+    static final String MAGIC_SCALED = "HUF2";
+
+    static final int DEFAULT_SAMPLE_CHUNKS = 64;
+    static final int DEFAULT_SAMPLE_CHUNK_SIZE = 64 * 1024;
+
+    static final int MIN_LEVEL = 1;
+    static final int MAX_LEVEL = 9;
 
     static CompressionResult compress(File input, File output) throws Exception {
-        int[] freq = FileUtil.countFrequencies(input); // Read file and count frequencies. fileciteturn3file0L20-L24
-        HuffmanNode root = HuffmanCodec.buildTree(freq); // Create Huffman coding tree. fileciteturn3file0L21-L22
-        String[] codes = HuffmanCodec.buildCodes(root);  // Create table of encodings. fileciteturn3file0L22-L24
+        return compress(input, output, false);
+    }
+
+    /**
+     * @param scaledHeader write the compact "HUF2" header (frequencies scaled to
+     *                     {@link FrequencyTable#SCALE_TOTAL}, presence bitmap + varints)
+     *                     instead of raw 4-byte counts
+     */
+    static CompressionResult compress(File input, File output, boolean scaledHeader) throws Exception {
+        int[] freq = FileUtil.countFrequencies(input); // Read file and count frequencies. fileciteturn3file0L20-L24
+        return encode(input, output, freq, scaledHeader, null);
+    }
+
+    /**
+     * Compresses using a histogram estimated from sampled chunks instead of a full counting pass,
+     * so the input is read only once. Bytes that never showed up in the samples still get a
+     * (long) code, so the estimate can never miss a byte. The exact counts are gathered while
+     * encoding and used to report {@link CompressionResult#ratioLoss}.
+     */
+    static CompressionResult compressSampled(File input, File output, int sampleChunks, int chunkSize,
+                                             boolean scaledHeader) throws Exception {
+        int[] freq = FileUtil.sampleFrequencies(input, sampleChunks, chunkSize);
+        // Small files are counted in full, so there is nothing to escape
+        boolean sampled = (long) sampleChunks * chunkSize < FileUtil.fileLength(input);
+        for (int b = 0; sampled && b < 256; b++) {
+            if (freq[b] == 0) freq[b] = 1;
+        }
+        return encode(input, output, freq, scaledHeader, new int[256]);
+    }
+
+    static CompressionResult compressSampled(File input, File output, boolean scaledHeader) throws Exception {
+        return compressSampled(input, output, DEFAULT_SAMPLE_CHUNKS, DEFAULT_SAMPLE_CHUNK_SIZE, scaledHeader);
+    }
+
+    /**
+     * Compresses at a preset trading speed for ratio:
+     * <ul>
+     *   <li>1-3: sampled histogram, one code table for the whole file (HUF2); more samples at higher levels</li>
+     *   <li>4-6: exact per-block code tables (HUFB); smaller blocks at higher levels</li>
+     *   <li>7-9: per-block tables, with blocks cut where the byte distribution shifts; smaller analysis windows at higher levels</li>
+     * </ul>
+     */
+    static CompressionResult compressAtLevel(File input, File output, int level) throws Exception {
+        if (level < MIN_LEVEL || level > MAX_LEVEL) {
+            throw new IllegalArgumentException("level must be " + MIN_LEVEL + ".." + MAX_LEVEL + ": " + level);
+        }
+
+        if (level <= 3) {
+            int chunks = DEFAULT_SAMPLE_CHUNKS >> (3 - level);
+            CompressionResult r = compressSampled(input, output, chunks, DEFAULT_SAMPLE_CHUNK_SIZE, true);
+            return new CompressionResult(r.freq, r.codes, r.originalLen, r.compressedLen, r.headerLen,
+                    r.scaledHeader, r.exactFreq, r.ratioLoss, level, 0);
+        }
+
+        HuffmanStream.StreamResult r = (level <= 6)
+                ? HuffmanStream.compressBlocks(input, output, (4 * 1024 * 1024) >> (2 * (level - 4)), 0)
+                : HuffmanStream.compressBlocks(input, output, 4 * 1024 * 1024, (64 * 1024) >> (level - 7));
+        // Codes differ per block; the table shown is what one table for the whole file would look like
+        String[] codes = HuffmanCodec.buildCodes(HuffmanCodec.buildTree(r.freq));
+        return new CompressionResult(r.freq, codes, r.originalLen, r.compressedLen, r.overheadLen,
+                true, null, 0, level, r.blocks);
+    }
+
+    /**
+     * Writes header + code bits for input using the given table.
+     * @param exactFreq if non-null, filled with the real byte counts while encoding
+     */
+    private static CompressionResult encode(File input, File output, int[] freq, boolean scaledHeader,
+                                            int[] exactFreq) throws Exception {
+        // The decoder only sees the stored table, so the tree must be built from the scaled counts too
+        if (scaledHeader) freq = FrequencyTable.normalize(freq, FrequencyTable.SCALE_TOTAL);
+        HuffmanNode root = HuffmanCodec.buildTree(freq); // Create Huffman coding tree. fileciteturn3file0L21-L22
+        String[] codes = HuffmanCodec.buildCodes(root);  // Create table of encodings. fileciteturn3file0L22-L24
 
         long originalLen = FileUtil.fileLength(input);
 
@@ -17,43 +94,94 @@ final class HuffmanService {
              OutputStream fos = new BufferedOutputStream(new FileOutputStream(output));
              DataOutputStream headerOut = new DataOutputStream(fos)) {
 
-            // Header must include the Huffman code info (we store frequencies -> reconstruct tree/codes). fileciteturn3file0L25-L27
-            // Optimized: only store non-zero frequencies to reduce header size
-            headerOut.writeBytes(MAGIC);
-            headerOut.writeLong(originalLen);
-
-            // Count non-zero frequencies
-            int nonZeroCount = 0;
-            for (int i = 0; i < 256; i++) {
-                if (freq[i] > 0) nonZeroCount++;
+            // Header must include the Huffman code info (we store frequencies -> reconstruct tree/codes). fileciteturn3file0L25-L27
+            if (scaledHeader) {
+                headerOut.writeBytes(MAGIC_SCALED);
+                FrequencyTable.writeVarInt(headerOut, originalLen);
+                FrequencyTable.write(headerOut, freq);
+            } else {
+                writeRawHeader(headerOut, freq, originalLen);
             }
-            headerOut.writeInt(nonZeroCount);
 
-            // Write only non-zero frequencies: byte value (1 byte) + frequency (4 bytes)
-            for (int i = 0; i < 256; i++) {
-                if (freq[i] > 0) {
-                    headerOut.writeByte(i);
-                    headerOut.writeInt(freq[i]);
+            // Now write compressed bits, one packed code per byte instead of one bit at a time
+            int[] codeLen = HuffmanCodec.codeLengths(codes);
+            long[] codeBits = HuffmanCodec.codeBits(codes);
+            try (BitOutputStream bitOut = new BitOutputStream(fos)) {
+                byte[] buf = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    if (exactFreq != null) FileUtil.countFrequencies(buf, 0, n, exactFreq);
+                    for (int i = 0; i < n; i++) {
+                        int b = buf[i] & 0xFF;
+                        if (codeLen[b] == 0) throw new IllegalStateException("Missing code for byte " + b);
+                        bitOut.writeBits(codeBits[b], codeLen[b]);
+                    }
                 }
             }
+        }
 
-            // Now write compressed bits
-            try (BitOutputStream bitOut = new BitOutputStream(fos)) {
-                int b;
-                while ((b = in.read()) != -1) {
-                    String code = codes[b & 0xFF];
-                    if (code == null) throw new IllegalStateException("Missing code for byte " + (b & 0xFF));
-                    bitOut.writeBits(code);
-                }
+        long headerLen = scaledHeader ? calculateScaledHeaderSize(freq, originalLen) : calculateHeaderSize(freq);
+        long compressedLen = output.length();
+        double ratioLoss = 0;
+        if (exactFreq != null) {
+            long exactLen = estimateCompressedSize(exactFreq, scaledHeader, originalLen);
+            if (exactLen > 0) ratioLoss = (double) (compressedLen - exactLen) / exactLen;
+        }
+        return new CompressionResult(freq, codes, originalLen, compressedLen, headerLen, scaledHeader,
+                exactFreq, ratioLoss, 0, 0);
+    }
+
+    /** Size that {@link #compress(File, File, boolean)} would produce for these exact counts, without writing it. */
+    static long estimateCompressedSize(int[] exactFreq, boolean scaledHeader, long originalLen) {
+        int[] table = scaledHeader ? FrequencyTable.normalize(exactFreq, FrequencyTable.SCALE_TOTAL) : exactFreq;
+        int[] codeLen = HuffmanCodec.codeLengths(HuffmanCodec.buildCodes(HuffmanCodec.buildTree(table)));
+        long bits = HuffmanCodec.encodedBits(exactFreq, codeLen);
+        int headerLen = scaledHeader ? calculateScaledHeaderSize(table, originalLen) : calculateHeaderSize(table);
+        return headerLen + (bits + 7) / 8;
+    }
+
+    private static void writeRawHeader(DataOutputStream headerOut, int[] freq, long originalLen) throws IOException {
+        // Optimized: only store non-zero frequencies to reduce header size
+        headerOut.writeBytes(MAGIC);
+        headerOut.writeLong(originalLen);
+
+        // Count non-zero frequencies
+        int nonZeroCount = 0;
+        for (int i = 0; i < 256; i++) {
+            if (freq[i] > 0) nonZeroCount++;
+        }
+        headerOut.writeInt(nonZeroCount);
+
+        // Write only non-zero frequencies: byte value (1 byte) + frequency (4 bytes)
+        for (int i = 0; i < 256; i++) {
+            if (freq[i] > 0) {
+                headerOut.writeByte(i);
+                headerOut.writeInt(freq[i]);
             }
         }
+    }
+
+    /** Reads the HUF1 frequency table that follows the original length. */
+    static int[] readRawFrequencies(DataInput headerIn) throws IOException {
+        int[] freq = new int[256];
+
+        // Read count of non-zero frequencies
+        int nonZeroCount = headerIn.readInt();
+        if (nonZeroCount < 0 || nonZeroCount > 256) throw new IOException("Corrupted header: " + nonZeroCount + " entries");
 
-        return new CompressionResult(freq, codes, originalLen, output.length());
+        // Read only non-zero frequencies: byte value (1 byte) + frequency (4 bytes)
+        for (int i = 0; i < nonZeroCount; i++) {
+            int byteValue = headerIn.readByte() & 0xFF;
+            int frequency = headerIn.readInt();
+            freq[byteValue] = frequency;
+        }
+        return freq;
     }
 
     static DecompressionResult decompress(File compressed, File outputDecoded) throws Exception {
-        int[] freq = new int[256];
+        int[] freq;
         long originalLen;
+        boolean scaledHeader;
 
         try (InputStream fis = new BufferedInputStream(new FileInputStream(compressed));
              DataInputStream headerIn = new DataInputStream(fis)) {
@@ -61,21 +189,20 @@ final class HuffmanService {
             byte[] magicBytes = new byte[4];
             headerIn.readFully(magicBytes);
             String magic = new String(magicBytes);
-            if (!MAGIC.equals(magic)) throw new IOException("Not a Huffman file (bad magic): " + magic);
-
-            originalLen = headerIn.readLong();
-            
-            // Read count of non-zero frequencies
-            int nonZeroCount = headerIn.readInt();
-            
-            // Initialize all frequencies to 0
-            for (int i = 0; i < 256; i++) freq[i] = 0;
-            
-            // Read only non-zero frequencies: byte value (1 byte) + frequency (4 bytes)
-            for (int i = 0; i < nonZeroCount; i++) {
-                int byteValue = headerIn.readByte() & 0xFF;
-                int frequency = headerIn.readInt();
-                freq[byteValue] = frequency;
+
+            if (MAGIC.equals(magic)) {
+                scaledHeader = false;
+                originalLen = headerIn.readLong();
+                freq = readRawFrequencies(headerIn);
+            } else if (MAGIC_SCALED.equals(magic)) {
+                scaledHeader = true;
+                originalLen = FrequencyTable.readVarLong(headerIn);
+                freq = FrequencyTable.read(headerIn);
+            } else if (BlockCodec.MAGIC.equals(magic)) {
+                HuffmanStream.StreamResult r = HuffmanStream.decompress(compressed, outputDecoded);
+                return new DecompressionResult(r.freq, r.originalLen, r.originalLen, true, r.blocks);
+            } else {
+                throw new IOException("Not a Huffman file (bad magic): " + magic);
             }
 
             HuffmanNode root = HuffmanCodec.buildTree(freq);
@@ -84,7 +211,7 @@ final class HuffmanService {
                 try (OutputStream out = new BufferedOutputStream(new FileOutputStream(outputDecoded))) {
                     // write nothing
                 }
-                return new DecompressionResult(freq, originalLen, 0);
+                return new DecompressionResult(freq, originalLen, 0, scaledHeader, 0);
             }
 
             try (BitInputStream bitIn = new BitInputStream(fis);
@@ -106,12 +233,24 @@ final class HuffmanService {
                     }
                 }
                 out.flush();
-                return new DecompressionResult(freq, originalLen, written);
+                return new DecompressionResult(freq, originalLen, written, scaledHeader, 0);
             }
         }
     }
 
     static String buildHeaderDisplay(int[] freq, String[] codes, long originalLen) {
+        return buildHeaderDisplay(freq, codes, originalLen, false);
+    }
+
+    static String buildHeaderDisplay(int[] freq, String[] codes, long originalLen, boolean scaledHeader) {
+        return buildHeaderDisplay(freq, codes, originalLen, scaledHeader, 0);
+    }
+
+    /** @param blocks number of HUFB blocks, or 0 for a single-table HUF1/HUF2 file */
+    static String buildHeaderDisplay(int[] freq, String[] codes, long originalLen, boolean scaledHeader, int blocks) {
+        if (blocks > 0) return buildBlockHeaderDisplay(freq, codes, originalLen, blocks);
+        if (scaledHeader) return buildScaledHeaderDisplay(freq, codes, originalLen);
+
         StringBuilder sb = new StringBuilder();
         sb.append("═══════════════════════════════════════════════════\n");
         sb.append("HEADER STRUCTURE\n");
@@ -130,16 +269,7 @@ final class HuffmanService {
         sb.append("  [17-").append(headerSize).append("] Frequency table: ").append(nonZeroCount).append(" entries × 5 bytes each\n");
         sb.append("            Each entry: byte value (1 byte) + frequency (4 bytes)\n\n");
         
-        sb.append("═══════════════════════════════════════════════════\n");
-        sb.append("FREQUENCY TABLE & HUFFMAN CODES\n");
-        sb.append("═══════════════════════════════════════════════════\n\n");
-        
-        for (int b = 0; b < 256; b++) {
-            if (freq[b] > 0) {
-                sb.append(String.format("Byte %3d  %-20s  Frequency: %4d  Code: %s%n",
-                        b, printable(b), freq[b], (codes == null ? "-" : codes[b])));
-            }
-        }
+        appendCodeTable(sb, freq, codes);
         
         sb.append("\n═══════════════════════════════════════════════════\n");
         sb.append("Header Size Breakdown:\n");
@@ -153,6 +283,74 @@ final class HuffmanService {
         return sb.toString();
     }
 
+    private static String buildScaledHeaderDisplay(int[] freq, String[] codes, long originalLen) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("═══════════════════════════════════════════════════\n");
+        sb.append("HEADER STRUCTURE (compact)\n");
+        sb.append("═══════════════════════════════════════════════════\n\n");
+
+        int nonZeroCount = 0;
+        for (int i = 0; i < 256; i++) {
+            if (freq[i] > 0) nonZeroCount++;
+        }
+        int lenBytes = FrequencyTable.varIntSize(originalLen);
+        int tableBytes = FrequencyTable.size(freq);
+        int headerSize = calculateScaledHeaderSize(freq, originalLen);
+
+        sb.append("Header Format (Total: ").append(headerSize).append(" bytes):\n");
+        sb.append("  Magic bytes: \"HUF2\" (4 bytes)\n");
+        sb.append("  Original file length: ").append(originalLen).append(" (").append(lenBytes).append(" bytes, varint)\n");
+        sb.append("  Presence bitmap: 1 bit per byte value (32 bytes)\n");
+        sb.append("  Frequency table: ").append(nonZeroCount).append(" varints, scaled to a total of ")
+                .append(FrequencyTable.SCALE_TOTAL).append("\n\n");
+
+        appendCodeTable(sb, freq, codes);
+
+        sb.append("\n═══════════════════════════════════════════════════\n");
+        sb.append("Header Size Breakdown:\n");
+        sb.append("  Magic:           4 bytes\n");
+        sb.append("  Original length: ").append(lenBytes).append(" bytes\n");
+        sb.append("  Bitmap:          ").append(FrequencyTable.BITMAP_BYTES).append(" bytes\n");
+        sb.append("  Frequency data:  ").append(tableBytes - FrequencyTable.BITMAP_BYTES).append(" bytes (").append(nonZeroCount).append(" entries)\n");
+        sb.append("  ─────────────────────────────\n");
+        sb.append("  TOTAL HEADER:    ").append(headerSize).append(" bytes\n");
+
+        return sb.toString();
+    }
+
+    private static String buildBlockHeaderDisplay(int[] freq, String[] codes, long originalLen, int blocks) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("═══════════════════════════════════════════════════\n");
+        sb.append("HEADER STRUCTURE (blocks)\n");
+        sb.append("═══════════════════════════════════════════════════\n\n");
+
+        sb.append("File Format:\n");
+        sb.append("  Magic bytes: \"HUFB\" (4 bytes)\n");
+        sb.append("  Blocks: ").append(blocks).append(", each stored as:\n");
+        sb.append("    Original length + payload length (varints)\n");
+        sb.append("    Kind (1 byte): own table follows / reuse previous table\n");
+        sb.append("    Scaled frequency table (bitmap + varints, as in HUF2)\n");
+        sb.append("    Code bits, padded to a byte\n");
+        sb.append("  Trailer: original length ").append(originalLen).append(" (varint) + CRC32 (4 bytes)\n\n");
+        sb.append("Codes differ per block; the codes below are for the whole file's counts.\n\n");
+
+        appendCodeTable(sb, freq, codes);
+        return sb.toString();
+    }
+
+    private static void appendCodeTable(StringBuilder sb, int[] freq, String[] codes) {
+        sb.append("═══════════════════════════════════════════════════\n");
+        sb.append("FREQUENCY TABLE & HUFFMAN CODES\n");
+        sb.append("═══════════════════════════════════════════════════\n\n");
+        
+        for (int b = 0; b < 256; b++) {
+            if (freq[b] > 0) {
+                sb.append(String.format("Byte %3d  %-20s  Frequency: %4d  Code: %s%n",
+                        b, printable(b), freq[b], (codes == null ? "-" : codes[b])));
+            }
+        }
+    }
+
     static int calculateHeaderSize(int[] freq) {
         int nonZeroCount = 0;
         for (int i = 0; i < 256; i++) {
@@ -162,6 +360,17 @@ final class HuffmanService {
         return 4 + 8 + 4 + (nonZeroCount * 5);
     }
 
+    static int calculateScaledHeaderSize(int[] scaledFreq, long originalLen) {
+        // MAGIC (4) + originalLen (varint) + presence bitmap (32) + one varint per present byte
+        return 4 + FrequencyTable.varIntSize(originalLen) + FrequencyTable.size(scaledFreq);
+    }
+
+    static int calculateBlockHeaderSize(int[] scaledFreq, long rawLen) {
+        // rawLen + payloadLen (varints; the payload is taken to be no longer than rawLen) + kind (1)
+        // + presence bitmap (32) + one varint per present byte
+        return 2 * FrequencyTable.varIntSize(rawLen) + 1 + FrequencyTable.size(scaledFreq);
+    }
+
     static List<CodeRow> buildCodeRows(int[] freq, String[] codes) {
         List<CodeRow> rows = new ArrayList<>();
         for (int b = 0; b < 256; b++) {
@@ -199,12 +408,26 @@ final class HuffmanService {
         final String[] codes;
         final long originalLen;
         final long compressedLen;
+        final long headerLen;    // everything that is not code bits (all block tables for HUFB)
+        final boolean scaledHeader;
+        final int[] exactFreq;   // real counts when freq was estimated from samples, else null
+        final double ratioLoss;  // extra output vs. an exact count, as a fraction (0.01 = 1% larger)
+        final int level;         // preset used, or 0 for a plain compress() call
+        final int blocks;        // HUFB blocks written, or 0 for a single-table file
 
-        CompressionResult(int[] freq, String[] codes, long originalLen, long compressedLen) {
+        CompressionResult(int[] freq, String[] codes, long originalLen, long compressedLen,
+                          long headerLen, boolean scaledHeader, int[] exactFreq, double ratioLoss,
+                          int level, int blocks) {
             this.freq = freq;
             this.codes = codes;
             this.originalLen = originalLen;
             this.compressedLen = compressedLen;
+            this.headerLen = headerLen;
+            this.scaledHeader = scaledHeader;
+            this.exactFreq = exactFreq;
+            this.ratioLoss = ratioLoss;
+            this.level = level;
+            this.blocks = blocks;
         }
     }
 
@@ -212,11 +435,15 @@ final class HuffmanService {
         final int[] freq;
         final long originalLen;
         final long decodedLen;
+        final boolean scaledHeader;
+        final int blocks;
 
-        DecompressionResult(int[] freq, long originalLen, long decodedLen) {
+        DecompressionResult(int[] freq, long originalLen, long decodedLen, boolean scaledHeader, int blocks) {
             this.freq = freq;
             this.originalLen = originalLen;
             this.decodedLen = decodedLen;
+            this.scaledHeader = scaledHeader;
+            this.blocks = blocks;
         }
     }
 
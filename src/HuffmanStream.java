@@ -0,0 +1,224 @@
+import java.io.*;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.zip.CRC32;
+
+/**
+ * Single-pass compression for files of any size: one read of the input, one write of the output,
+ * with CRC32 / SHA-256 of both sides and the ratio computed along the way.
+ * Heap use is bounded by the chosen budget, which sets the block size of the "HUFB" format.
+ */
+final class HuffmanStream {
+
+    static final long DEFAULT_HEAP_BUDGET = 64L * 1024 * 1024;
+
+    static final int MIN_BLOCK_SIZE = 64 * 1024;
+    static final int MAX_BLOCK_SIZE = 256 * 1024 * 1024;
+
+    /** Largest block the default decoder accepts; compressors never write bigger ones, so any HUFB file decodes with the defaults. */
+    static final int MAX_COMPRESS_BLOCK_SIZE = blockSizeFor(DEFAULT_HEAP_BUDGET);
+
+    /** Longest code a table scaled to {@link FrequencyTable#SCALE_TOTAL} can give: depth grows at most like Fibonacci in the total. */
+    static final int MAX_CODE_BITS = 18;
+    /** Kind byte + stored table (bitmap and at most 256 two-byte varints), rounded up. */
+    static final int MAX_TABLE_BYTES = 1024;
+
+    /** Input block + worst-case payload are the two large buffers, so both together must fit the budget. */
+    static int blockSizeFor(long heapBudget) {
+        long size = (heapBudget - MAX_TABLE_BYTES) * 8 / (8 + MAX_CODE_BITS);
+        return (int) Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, size));
+    }
+
+    /** Worst-case payload for a block: every byte at the longest code, plus kind byte and table. */
+    static int payloadLimitFor(int blockSize) {
+        return (int) Math.min(Integer.MAX_VALUE - 8, ((long) blockSize * MAX_CODE_BITS + 7) / 8 + MAX_TABLE_BYTES);
+    }
+
+    static StreamResult compress(File input, File output) throws Exception {
+        return compress(input, output, DEFAULT_HEAP_BUDGET);
+    }
+
+    /** @param heapBudget budgets above {@link #DEFAULT_HEAP_BUDGET} are capped there, see {@link #MAX_COMPRESS_BLOCK_SIZE} */
+    static StreamResult compress(File input, File output, long heapBudget) throws Exception {
+        return compressBlocks(input, output, blockSizeFor(Math.min(heapBudget, DEFAULT_HEAP_BUDGET)), 0);
+    }
+
+    /**
+     * @param blockSize   largest block, at most {@link #MAX_COMPRESS_BLOCK_SIZE}; together with the
+     *                    payload buffer this bounds heap use
+     * @param windowSize  if positive, the input is read in windows of this size and a new block is
+     *                    started wherever the byte distribution shifts enough for a new table to pay
+     *                    off (see {@link BlockSplitter}); 0 gives fixed blocks of blockSize
+     */
+    static StreamResult compressBlocks(File input, File output, int blockSize, int windowSize) throws Exception {
+        if (blockSize > MAX_COMPRESS_BLOCK_SIZE) {
+            throw new IllegalArgumentException("blockSize must not exceed " + MAX_COMPRESS_BLOCK_SIZE + ": " + blockSize);
+        }
+        if (windowSize > blockSize) throw new IllegalArgumentException("windowSize must not exceed blockSize");
+        byte[] block = new byte[blockSize];
+        // Sized for the worst case up front, so incompressible blocks never make it grow past the budget
+        BlockCodec.Buffer payload = new BlockCodec.Buffer(payloadLimitFor(blockSize));
+
+        CRC32 crc = new CRC32();
+        MessageDigest inSha = MessageDigest.getInstance("SHA-256");
+        MessageDigest outSha = MessageDigest.getInstance("SHA-256");
+        int[] totalFreq = new int[256];
+        long originalLen = 0;
+        long overheadLen = 0;
+        int blocks = 0;
+
+        try (InputStream in = new FileInputStream(input);
+             DataOutputStream out = new DataOutputStream(new DigestOutputStream(
+                     new BufferedOutputStream(new FileOutputStream(output)), outSha))) {
+
+            out.writeBytes(BlockCodec.MAGIC);
+
+            int readSize = (windowSize > 0) ? windowSize : blockSize;
+            int[] blockFreq = new int[256];
+            int fill = 0;
+
+            // The window is read straight into the block buffer, right after the bytes already held
+            int n;
+            while ((n = FileUtil.readFully(in, block, fill, Math.min(readSize, blockSize - fill))) > 0) {
+                crc.update(block, fill, n);
+                inSha.update(block, fill, n);
+                originalLen += n;
+
+                int[] windowFreq = new int[256];
+                FileUtil.countFrequencies(block, fill, n, windowFreq);
+
+                if (windowSize > 0 && fill > 0 && BlockSplitter.startsNewBlock(blockFreq, windowFreq)) {
+                    overheadLen += writeBlock(out, block, fill, blockFreq, payload, totalFreq);
+                    blocks++;
+                    System.arraycopy(block, fill, block, 0, n);
+                    fill = 0;
+                    blockFreq = new int[256];
+                }
+
+                for (int b = 0; b < 256; b++) blockFreq[b] += windowFreq[b];
+                fill += n;
+
+                if (fill == blockSize) {
+                    overheadLen += writeBlock(out, block, fill, blockFreq, payload, totalFreq);
+                    blocks++;
+                    fill = 0;
+                    blockFreq = new int[256];
+                }
+            }
+            if (fill > 0) {
+                overheadLen += writeBlock(out, block, fill, blockFreq, payload, totalFreq);
+                blocks++;
+            }
+
+            BlockCodec.writeTrailer(out, originalLen, crc.getValue());
+        }
+
+        // Everything that is not code bits: magic, record lengths, kind bytes, tables, trailer
+        overheadLen += BlockCodec.MAGIC.length() + 1 + FrequencyTable.varIntSize(originalLen) + 4;
+        return new StreamResult(totalFreq, originalLen, output.length(), blocks, overheadLen, crc.getValue(),
+                FileUtil.toHex(inSha.digest()), FileUtil.toHex(outSha.digest()));
+    }
+
+    /** Encodes block[0, len) with a table built from freq and writes its record; @return overhead bytes */
+    private static long writeBlock(DataOutputStream out, byte[] block, int len, int[] freq,
+                                   BlockCodec.Buffer payload, int[] totalFreq) throws IOException {
+        addCounts(totalFreq, freq);
+        int headerBytes = BlockCodec.encode(block, 0, len, BlockCodec.tableFor(freq), BlockCodec.KIND_NEW_TABLE, payload);
+        return headerBytes + BlockCodec.writeRecord(out, len, payload);
+    }
+
+    static StreamResult decompress(File compressed, File outputDecoded) throws Exception {
+        return decompress(compressed, outputDecoded, DEFAULT_HEAP_BUDGET);
+    }
+
+    /** Decodes a HUFB file and verifies length and CRC32 from the trailer, so no separate compare pass is needed. */
+    static StreamResult decompress(File compressed, File outputDecoded, long heapBudget) throws Exception {
+        int blockLimit = blockSizeFor(heapBudget);
+        int payloadLimit = payloadLimitFor(blockLimit);
+        byte[] block = new byte[0];
+        byte[] payload = new byte[0];
+
+        CRC32 crc = new CRC32();
+        MessageDigest inSha = MessageDigest.getInstance("SHA-256");
+        MessageDigest outSha = MessageDigest.getInstance("SHA-256");
+        int[] totalFreq = new int[256];
+        long originalLen = 0;
+        int blocks = 0;
+
+        try (DataInputStream in = new DataInputStream(new DigestInputStream(
+                     new BufferedInputStream(new FileInputStream(compressed)), inSha));
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(outputDecoded))) {
+
+            byte[] magicBytes = new byte[4];
+            in.readFully(magicBytes);
+            String magic = new String(magicBytes);
+            if (!BlockCodec.MAGIC.equals(magic)) throw new IOException("Not a block Huffman file (bad magic): " + magic);
+
+            BlockCodec.Table table = null;
+            int rawLen;
+            while ((rawLen = BlockCodec.readLength(in, blockLimit)) > 0) {
+                int payloadLen = BlockCodec.readLength(in, payloadLimit);
+                if (payload.length < payloadLen) payload = new byte[payloadLen];
+                if (block.length < rawLen) block = new byte[rawLen];
+                in.readFully(payload, 0, payloadLen);
+
+                table = BlockCodec.decode(payload, payloadLen, table, block, rawLen);
+                crc.update(block, 0, rawLen);
+                outSha.update(block, 0, rawLen);
+                int[] freq = new int[256];
+                FileUtil.countFrequencies(block, 0, rawLen, freq);
+                addCounts(totalFreq, freq);
+                out.write(block, 0, rawLen);
+                originalLen += rawLen;
+                blocks++;
+            }
+
+            long expectedLen = FrequencyTable.readVarLong(in);
+            long expectedCrc = in.readInt() & 0xFFFFFFFFL;
+            if (expectedLen != originalLen) {
+                throw new IOException("Length mismatch: decoded " + originalLen + " bytes, expected " + expectedLen);
+            }
+            if (expectedCrc != crc.getValue()) throw new IOException("CRC32 mismatch: decoded data is corrupted");
+        }
+
+        return new StreamResult(totalFreq, originalLen, compressed.length(), blocks, -1, crc.getValue(),
+                FileUtil.toHex(outSha.digest()), FileUtil.toHex(inSha.digest()));
+    }
+
+    /** Adds counts, saturating at Integer.MAX_VALUE (the totals are only used for display). */
+    static void addCounts(int[] total, int[] freq) {
+        for (int b = 0; b < 256; b++) {
+            total[b] = (int) Math.min(Integer.MAX_VALUE, (long) total[b] + freq[b]);
+        }
+    }
+
+    static final class StreamResult {
+        final int[] freq;
+        final long originalLen;
+        final long compressedLen;
+        final int blocks;
+        final long overheadLen; // bytes that are not code bits (tables, lengths, ...); -1 if not tracked
+        final long crc32;
+        final String originalSha256;
+        final String compressedSha256;
+
+        StreamResult(int[] freq, long originalLen, long compressedLen, int blocks, long overheadLen, long crc32,
+                     String originalSha256, String compressedSha256) {
+            this.freq = freq;
+            this.originalLen = originalLen;
+            this.compressedLen = compressedLen;
+            this.blocks = blocks;
+            this.overheadLen = overheadLen;
+            this.crc32 = crc32;
+            this.originalSha256 = originalSha256;
+            this.compressedSha256 = compressedSha256;
+        }
+
+        double ratio() {
+            return originalLen == 0 ? 0 : (double) compressedLen / originalLen;
+        }
+    }
+
+    private HuffmanStream() {}
+}
@@ -0,0 +1,33 @@
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/** {@link BitInputStream} equivalent that reads straight from a (heap or off-heap) memory segment. */
+final class SegmentBitInput {
+    private final MemorySegment seg;
+    private long pos;
+    private int currentByte;
+    private int numBitsRemaining;
+
+    SegmentBitInput(MemorySegment seg, long offset) {
+        this.seg = seg;
+        this.pos = offset;
+        this.currentByte = 0;
+        this.numBitsRemaining = 0;
+    }
+
+    /** @return next bit (0/1) or -1 if end of segment */
+    int readBit() {
+        if (numBitsRemaining == 0) {
+            if (pos >= seg.byteSize()) return -1;
+            currentByte = seg.get(ValueLayout.JAVA_BYTE, pos++) & 0xFF;
+            numBitsRemaining = 8;
+        }
+        numBitsRemaining--;
+        return (currentByte >>> numBitsRemaining) & 1;
+    }
+
+    /** @return offset just past the last byte read, i.e. where the next byte-aligned data starts */
+    long position() {
+        return pos;
+    }
+}
@@ -0,0 +1,44 @@
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/** {@link BitOutputStream} equivalent that writes straight into a (heap or off-heap) memory segment. */
+final class SegmentBitOutput {
+    private final MemorySegment seg;
+    private long pos;
+    private long bitBuffer;
+    private int numBitsFilled;
+
+    SegmentBitOutput(MemorySegment seg, long offset) {
+        this.seg = seg;
+        this.pos = offset;
+        this.bitBuffer = 0;
+        this.numBitsFilled = 0;
+    }
+
+    /** Writes the low {@code len} bits of {@code bits}, most significant first (len 0..64). */
+    void writeBits(long bits, int len) {
+        if (len > 32) {
+            writeBits(bits >>> 32, len - 32);
+            len = 32;
+        }
+        bitBuffer = (bitBuffer << len) | (bits & ((1L << len) - 1));
+        numBitsFilled += len;
+
+        while (numBitsFilled >= 8) {
+            numBitsFilled -= 8;
+            seg.set(ValueLayout.JAVA_BYTE, pos++, (byte) (bitBuffer >>> numBitsFilled));
+        }
+    }
+
+    void flushToByteBoundary() {
+        if (numBitsFilled == 0) return;
+        // pad remaining bits with 0s
+        seg.set(ValueLayout.JAVA_BYTE, pos++, (byte) (bitBuffer << (8 - numBitsFilled)));
+        numBitsFilled = 0;
+    }
+
+    /** @return offset of the next byte to be written */
+    long position() {
+        return pos;
+    }
+}